@@ -0,0 +1,168 @@
+package core;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import util.Log;
+import weka.core.Instances;
+
+/**
+ * Runs the load, pre-processing and evaluation pipeline for several data sets concurrently.
+ * The data sets are listed in a manifest file, one per line with the same arguments as on the
+ * command line ('<filename> [options]'); empty lines and lines starting with '#' are skipped.
+ * Loading runs on virtual threads (if the JVM supports them), pre-processing and evaluation on a
+ * shared pool with one thread per core. The estimated memory of the data sets in flight is limited
+ * to a fraction of the heap, so large data sets wait instead of running out of memory.
+ */
+public class BatchRunner {
+	/**
+	 * Fraction of the maximum heap which the data sets in flight may take up.
+	 */
+	public static final double MEMORY_FRACTION = 0.75;
+
+	/**
+	 * Estimated heap bytes per byte of CSV file (parsed instances plus the filtered copy).
+	 */
+	public static final int MEMORY_PER_FILE_BYTE = 4;
+
+	private static final long MB = 1024 * 1024;
+
+	/**
+	 * Single step of the pipeline which may throw.
+	 */
+	private interface Stage<T, R> {
+		R apply(T input) throws Exception;
+	}
+
+	/**
+	 * Runs the pipeline for every data set in the manifest and waits for all of them.
+	 * A failing data set is logged and does not stop the others.
+	 * @param manifest Manifest file
+	 * @throws Exception
+	 */
+	public static void run(File manifest) throws Exception {
+		List<String> entries = readManifest(manifest);
+
+		ExecutorService ioExecutor = newIoExecutor();
+		ExecutorService cpuExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		int memoryBudget = (int)(Math.max(1, Runtime.getRuntime().maxMemory() * MEMORY_FRACTION / MB));
+		Semaphore memory = new Semaphore(memoryBudget, true);
+
+		Log.log("Running the pipeline for " + entries.size() + " data sets (memory budget: " + memoryBudget + " MB)...");
+
+		try {
+			List<CompletableFuture<Void>> runs = new ArrayList<CompletableFuture<Void>>(entries.size());
+			for(int i = 0; i < entries.size(); i++)
+				runs.add(runEntry(i + 1, entries.get(i), ioExecutor, cpuExecutor, memory, memoryBudget));
+
+			int failed = 0;
+			for(int i = 0; i < runs.size(); i++) {
+				try {
+					runs.get(i).join();
+				} catch(CompletionException e) {
+					failed++;
+					Log.log("Data set #" + (i + 1) + " '" + entries.get(i) + "' failed: " + e.getCause());
+					e.getCause().printStackTrace();
+				}
+			}
+
+			Log.log("Batch finished: " + (entries.size() - failed) + " of " + entries.size() + " data sets succeeded");
+		} finally {
+			ioExecutor.shutdown();
+			cpuExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Chains the pipeline stages for a single data set.
+	 * Its log messages are tagged with the index of the entry, since the same file may be
+	 * listed several times with different options.
+	 * @param index Index of the entry in the manifest (starting at 1)
+	 * @param entry Manifest entry ('<filename> [options]')
+	 * @param ioExecutor Executor for the I/O-bound loading
+	 * @param cpuExecutor Executor for the CPU-bound pre-processing and evaluation
+	 * @param memory Semaphore holding the free memory budget in MB
+	 * @param memoryBudget Total memory budget in MB
+	 * @return Future completing when the data set has been evaluated
+	 */
+	private static CompletableFuture<Void> runEntry(int index, String entry, ExecutorService ioExecutor, ExecutorService cpuExecutor,
+			Semaphore memory, int memoryBudget) {
+		String fileName = entry.split(" ")[0];
+		String name = "#" + index + " " + new File(fileName).getName();
+		Log.log("Data set " + name + ": " + entry);
+
+		// Data sets larger than the whole budget still run, but on their own
+		int permits = (int)(Math.min(memoryBudget, Math.max(1, new File(fileName).length() * MEMORY_PER_FILE_BYTE / MB)));
+
+		return CompletableFuture.completedFuture(fileName)
+				.thenApplyAsync(inContext(name, (String file) -> {
+					memory.acquireUninterruptibly(permits);
+					return TestClassifiers.loadData(file);
+				}), ioExecutor)
+				.thenApplyAsync(inContext(name, (Instances data) -> TestClassifiers.preprocess(data, entry)), cpuExecutor)
+				.thenApplyAsync(inContext(name, (Instances data) -> {
+					TestClassifiers.evaluate(data, entry);
+					return (Void)null;
+				}), cpuExecutor)
+				.whenComplete((result, e) -> memory.release(permits));
+	}
+
+	/**
+	 * Wraps a stage so that its log messages are marked with the data set and its exceptions
+	 * are passed on to the future.
+	 * @param name Name of the data set
+	 * @param stage Stage to be wrapped
+	 * @return Wrapped stage
+	 */
+	private static <T, R> Function<T, R> inContext(String name, Stage<T, R> stage) {
+		return input -> {
+			Log.setContext(name);
+			try {
+				return stage.apply(input);
+			} catch(Exception e) {
+				throw new CompletionException(e);
+			} finally {
+				Log.setContext(null);
+			}
+		};
+	}
+
+	/**
+	 * Creates the executor for I/O-bound stages.
+	 * Virtual threads are only available from Java 21 on while the project targets Java 8,
+	 * so they are looked up reflectively with a cached thread pool as fallback.
+	 * @return Executor starting a new (virtual) thread per task
+	 */
+	private static ExecutorService newIoExecutor() {
+		try {
+			return (ExecutorService)(Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+		} catch(ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Reads the entries of a manifest file.
+	 * @param manifest Manifest file
+	 * @return List of entries ('<filename> [options]')
+	 * @throws Exception
+	 */
+	private static List<String> readManifest(File manifest) throws Exception {
+		List<String> entries = new ArrayList<String>();
+		for(String line : Files.readAllLines(manifest.toPath())) {
+			// Options are parsed by splitting at single spaces, so tabs and runs of spaces are collapsed
+			line = line.trim().replaceAll("\\s+", " ");
+			if(!line.isEmpty() && !line.startsWith("#"))
+				entries.add(line);
+		}
+		return entries;
+	}
+}
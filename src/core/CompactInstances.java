@@ -0,0 +1,287 @@
+package core;
+
+import java.io.Serializable;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Compact, reduced-precision storage for data sets which are kept in memory for a long time
+ * (e.g. the windowed data sets). Instead of one DenseInstance with 64 bit doubles per row, the
+ * values are stored row by row in flat arrays: numeric attributes as 32 bit floats or as 16 bit
+ * integers quantized to the attribute's range, nominal attributes as bytes.
+ * Classifiers still work on regular WEKA instances, which are created row by row (instance()) or for a
+ * range of rows (toInstances()) only when needed.
+ * Instance weights are not stored (all instances have weight 1).
+ */
+public class CompactInstances implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Storage precision of the numeric attributes.
+	 */
+	public enum Precision {
+		/** 32 bit floating point */
+		FLOAT,
+		/** 16 bit integer, linearly quantized between the attribute's minimum and maximum */
+		SHORT;
+
+		/**
+		 * Parses the precision from its command line name.
+		 * @param name 'float' or 'int16'
+		 * @return Precision
+		 */
+		public static Precision parse(String name) {
+			switch(name.toLowerCase()) {
+			case "float":
+			case "float32":
+				return FLOAT;
+			case "short":
+			case "int16":
+				return SHORT;
+			default:
+				throw new IllegalArgumentException("Unknown precision '" + name + "' (expected float or int16)");
+			}
+		}
+	}
+
+	// Markers for missing values in the integer encodings
+	private static final short MISSING_SHORT = Short.MIN_VALUE;
+	private static final byte MISSING_BYTE = -1;
+
+	private Instances structure;
+	private Precision precision;
+	private int numInstances;
+
+	// Column of each attribute within either the numeric or the nominal values
+	private int[] columns;
+	private boolean[] nominal;
+	private int numNumeric;
+	private int numNominal;
+
+	// Row-major values; only one of the numeric arrays is used depending on the precision
+	private float[] floatValues;
+	private short[] shortValues;
+	private byte[] nominalValues;
+
+	// Quantization per numeric column: value = quantized * scale + offset
+	private double[] offsets;
+	private double[] scales;
+
+	/**
+	 * Constructor.
+	 * Copies the given instances into the compact storage.
+	 * @param data Instances to be stored (only numeric and nominal attributes with at most 127 values)
+	 * @param precision Storage precision of the numeric attributes
+	 */
+	public CompactInstances(Instances data, Precision precision) {
+		this.structure = new Instances(data, 0);
+		this.precision = precision;
+		this.numInstances = data.numInstances();
+
+		columns = new int[data.numAttributes()];
+		nominal = new boolean[data.numAttributes()];
+		for(int att = 0; att < data.numAttributes(); att++) {
+			if(data.attribute(att).isNominal()) {
+				if(data.attribute(att).numValues() > Byte.MAX_VALUE)
+					throw new IllegalArgumentException("Nominal attribute '" + data.attribute(att).name()
+							+ "' has too many values to be stored as byte");
+				nominal[att] = true;
+				columns[att] = numNominal++;
+			} else if(data.attribute(att).isNumeric()) {
+				columns[att] = numNumeric++;
+			} else {
+				throw new IllegalArgumentException("Attribute '" + data.attribute(att).name() + "' is neither numeric nor nominal");
+			}
+		}
+
+		nominalValues = new byte[numInstances * numNominal];
+		if(precision == Precision.SHORT) {
+			shortValues = new short[numInstances * numNumeric];
+			computeQuantization(data);
+		} else {
+			floatValues = new float[numInstances * numNumeric];
+		}
+
+		for(int row = 0; row < numInstances; row++) {
+			Instance instance = data.instance(row);
+			for(int att = 0; att < columns.length; att++)
+				setValue(row, att, instance.value(att));
+		}
+	}
+
+	/**
+	 * Copy constructor for a range of rows; the encoding (including the quantization) is kept.
+	 * @param source Compact instances to copy from
+	 * @param first Index of the first row
+	 * @param toCopy Number of rows
+	 */
+	private CompactInstances(CompactInstances source, int first, int toCopy) {
+		structure = source.structure;
+		precision = source.precision;
+		numInstances = toCopy;
+
+		columns = source.columns;
+		nominal = source.nominal;
+		numNumeric = source.numNumeric;
+		numNominal = source.numNominal;
+
+		nominalValues = new byte[toCopy * numNominal];
+		System.arraycopy(source.nominalValues, first * numNominal, nominalValues, 0, nominalValues.length);
+		if(precision == Precision.SHORT) {
+			shortValues = new short[toCopy * numNumeric];
+			System.arraycopy(source.shortValues, first * numNumeric, shortValues, 0, shortValues.length);
+		} else {
+			floatValues = new float[toCopy * numNumeric];
+			System.arraycopy(source.floatValues, first * numNumeric, floatValues, 0, floatValues.length);
+		}
+
+		offsets = source.offsets;
+		scales = source.scales;
+	}
+
+	/**
+	 * Copies a range of the stored rows without decoding and re-encoding them,
+	 * so no further precision is lost.
+	 * @param first Index of the first row
+	 * @param toCopy Number of rows
+	 * @return New compact instances holding the rows
+	 */
+	public CompactInstances subset(int first, int toCopy) {
+		if(first < 0 || toCopy < 0 || first + toCopy > numInstances)
+			throw new IllegalArgumentException("Range " + first + " + " + toCopy + " exceeds " + numInstances + " instances");
+
+		return new CompactInstances(this, first, toCopy);
+	}
+
+	/**
+	 * Returns the data structure of the stored instances.
+	 * @return Empty set of instances with class and normal attributes
+	 */
+	public Instances getDataStructure() {
+		return structure;
+	}
+
+	public int numInstances() {
+		return numInstances;
+	}
+
+	/**
+	 * Returns a stored value (decoded to double).
+	 * @param row Index of the instance
+	 * @param att Index of the attribute
+	 * @return Value of the attribute, Utils.missingValue() if missing
+	 */
+	public double value(int row, int att) {
+		int column = columns[att];
+		if(nominal[att]) {
+			byte value = nominalValues[row * numNominal + column];
+			return (value == MISSING_BYTE) ? Utils.missingValue() : value;
+		}
+
+		if(precision == Precision.SHORT) {
+			short value = shortValues[row * numNumeric + column];
+			return (value == MISSING_SHORT) ? Utils.missingValue() : value * scales[column] + offsets[column];
+		}
+
+		// NaN is WEKA's missing value as well
+		return floatValues[row * numNumeric + column];
+	}
+
+	/**
+	 * Creates a regular WEKA instance from a stored row.
+	 * @param row Index of the instance
+	 * @return New instance (with the data structure as data set)
+	 */
+	public Instance instance(int row) {
+		double[] values = new double[columns.length];
+		for(int att = 0; att < columns.length; att++)
+			values[att] = value(row, att);
+
+		Instance instance = new DenseInstance(1.0, values);
+		instance.setDataset(structure);
+		return instance;
+	}
+
+	/**
+	 * Creates regular WEKA instances from all stored rows.
+	 * @return New set of instances
+	 */
+	public Instances toInstances() {
+		return toInstances(0, numInstances);
+	}
+
+	/**
+	 * Creates regular WEKA instances from a range of the stored rows.
+	 * @param first Index of the first instance
+	 * @param toCopy Number of instances
+	 * @return New set of instances
+	 */
+	public Instances toInstances(int first, int toCopy) {
+		if(first < 0 || toCopy < 0 || first + toCopy > numInstances)
+			throw new IllegalArgumentException("Range " + first + " + " + toCopy + " exceeds " + numInstances + " instances");
+
+		Instances instances = new Instances(structure, toCopy);
+		for(int row = first; row < first + toCopy; row++)
+			instances.add(instance(row));
+		return instances;
+	}
+
+	/**
+	 * Stores an encoded value.
+	 * @param row Index of the instance
+	 * @param att Index of the attribute
+	 * @param value Value to be encoded
+	 */
+	private void setValue(int row, int att, double value) {
+		int column = columns[att];
+		boolean missing = Utils.isMissingValue(value);
+
+		if(nominal[att]) {
+			nominalValues[row * numNominal + column] = missing ? MISSING_BYTE : (byte)(value);
+		} else if(precision == Precision.SHORT) {
+			// MISSING_SHORT is never the result of a quantization, since values are clamped to +/- Short.MAX_VALUE
+			shortValues[row * numNumeric + column] = missing ? MISSING_SHORT
+					: (short)(Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, Math.round((value - offsets[column]) / scales[column]))));
+		} else {
+			floatValues[row * numNumeric + column] = (float)(value);
+		}
+	}
+
+	/**
+	 * Computes the quantization of each numeric column, mapping the attribute's range
+	 * to [-Short.MAX_VALUE, Short.MAX_VALUE].
+	 * @param data Instances to be stored
+	 */
+	private void computeQuantization(Instances data) {
+		offsets = new double[numNumeric];
+		scales = new double[numNumeric];
+
+		for(int att = 0; att < columns.length; att++) {
+			if(nominal[att])
+				continue;
+
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for(int row = 0; row < numInstances; row++) {
+				double value = data.instance(row).value(att);
+				if(!Utils.isMissingValue(value)) {
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+				}
+			}
+
+			int column = columns[att];
+			if(min > max) {
+				// Only missing values
+				offsets[column] = 0.0;
+				scales[column] = 1.0;
+			} else {
+				offsets[column] = (min + max) / 2.0;
+				scales[column] = (max > min) ? (max - min) / (2.0 * Short.MAX_VALUE) : 1.0;
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instances;
+
+/**
+ * Single unit of work of a pooled evaluation.
+ * A job trains one (untrained) classifier on a prefix of the instance stream and evaluates it
+ * with the regular online or offline evaluator, so workers produce the same results as a local run.
+ */
+public class EvaluationJob implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private int id;
+	private Classifier classifier;
+	private boolean online;
+	private int trainingSize;
+	private int stepSize;
+	private double epsilon;
+	private int attempts;
+
+	/**
+	 * Constructor.
+	 * @param id Unique id of the job within its queue
+	 * @param classifier Untrained classifier to be evaluated
+	 * @param online Whether the classifier is to be trained incrementally
+	 * @param trainingSize Number of instances from the start of the stream to train on
+	 * @param stepSize Step size for online checkpoints (0 for a single evaluation after training)
+	 * @param epsilon Confidence bound for the sampled evaluation (0 for the full test set)
+	 */
+	public EvaluationJob(int id, Classifier classifier, boolean online, int trainingSize, int stepSize, double epsilon) {
+		this.id = id;
+		this.classifier = classifier;
+		this.online = online;
+		this.trainingSize = trainingSize;
+		this.stepSize = stepSize;
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Runs the job.
+	 * @param instanceStream Full instance stream of which the job trains on a prefix
+	 * @param testSet Test set
+	 * @return Evaluation for each checkpoint (exactly one unless online with a step size)
+	 * @throws Exception
+	 */
+	public List<Evaluation> run(Instances instanceStream, Instances testSet) throws Exception {
+		Instances trainingData = new Instances(instanceStream, 0, trainingSize);
+
+		Evaluator eval;
+		if(online) {
+			eval = new OnlineEvaluation(testSet);
+			((OnlineEvaluation)eval).addClassifier((UpdateableClassifier)classifier);
+		} else {
+			eval = new OfflineEvaluation(testSet);
+			((OfflineEvaluation)eval).addClassifier(classifier);
+		}
+		eval.setEpsilon(epsilon);
+
+		if(!online || stepSize <= 0)
+			return eval.evaluateCumulated(trainingData);
+
+		// Only one classifier, so each checkpoint holds a single evaluation
+		List<Evaluation> evals = new ArrayList<Evaluation>();
+		for(List<Evaluation> checkpoint : eval.evaluate(trainingData, stepSize))
+			evals.add(checkpoint.get(0));
+		return evals;
+	}
+
+	/**
+	 * Runs the job on compactly stored data.
+	 * The data stays compact: training instances are only expanded as far as the evaluator needs them
+	 * and the test set is scored one row at a time.
+	 * @param instanceStream Full compact instance stream of which the job trains on a prefix
+	 * @param testSet Compact test set
+	 * @return Evaluation for each checkpoint (exactly one unless online with a step size)
+	 * @throws Exception
+	 */
+	public List<Evaluation> run(CompactInstances instanceStream, CompactInstances testSet) throws Exception {
+		CompactInstances trainingData = (trainingSize == instanceStream.numInstances())
+				? instanceStream : instanceStream.subset(0, trainingSize);
+
+		Evaluator eval;
+		if(online) {
+			eval = new OnlineEvaluation(testSet);
+			((OnlineEvaluation)eval).addClassifier((UpdateableClassifier)classifier);
+		} else {
+			eval = new OfflineEvaluation(testSet);
+			((OfflineEvaluation)eval).addClassifier(classifier);
+		}
+		eval.setEpsilon(epsilon);
+
+		if(!online || stepSize <= 0)
+			return eval.evaluateCumulated(trainingData);
+
+		// Only one classifier, so each checkpoint holds a single evaluation
+		List<Evaluation> evals = new ArrayList<Evaluation>();
+		for(List<Evaluation> checkpoint : eval.evaluate(trainingData, stepSize))
+			evals.add(checkpoint.get(0));
+		return evals;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Counts a failed attempt at running this job.
+	 * @return Number of attempts so far
+	 */
+	public int incrementAttempts() {
+		return ++attempts;
+	}
+
+	@Override
+	public String toString() {
+		return "job " + id + " (" + classifier.getClass().getSimpleName() + ", " + trainingSize + " training instances)";
+	}
+}
@@ -29,6 +29,33 @@ public interface Evaluator {
 	 */
 	public List<List<Evaluation>> evaluate(Instances instanceStream, int stepSize) throws Exception;
 	
+	/**
+	 * Evaluates the classifiers after being trained on every compactly stored training instance (in order).
+	 * Only the instances needed at a time are expanded to regular instances.
+	 * @param instanceStream Compactly stored instances to be used for training
+	 * @return Evaluation object for each classifier
+	 * @throws Exception
+	 */
+	public List<Evaluation> evaluateCumulated(CompactInstances instanceStream) throws Exception;
+	
+	/**
+	 * Evaluates the classifiers after each stepSize compactly stored instances added to the training set.
+	 * Only the instances needed at a time are expanded to regular instances.
+	 * @param instanceStream Compactly stored instances for training
+	 * @param stepSize Number of instances to be added to the training set before re-evaluation
+	 * @return Evaluation object for each classifier for each evaluation
+	 * @throws Exception
+	 */
+	public List<List<Evaluation>> evaluate(CompactInstances instanceStream, int stepSize) throws Exception;
+	
+	/**
+	 * Enables the sampled (anytime) evaluation: instead of scoring the full test set, a growing
+	 * stratified sample of it is scored until the accuracy is known within +/- epsilon.
+	 * The returned evaluations are then SampledEvaluation objects carrying the confidence bound.
+	 * @param epsilon Half width of the accuracy confidence interval (in [0, 1]); 0 scores the full test set
+	 */
+	public void setEpsilon(double epsilon);
+	
 	/**
 	 * Class name of an added classifier.
 	 * @param index Index of the classifier
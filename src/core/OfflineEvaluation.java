@@ -17,11 +17,25 @@ public class OfflineEvaluation implements Evaluator {
 	private List<Classifier> classifiers;
 	
 	private Instances testSet;
+	private CompactInstances compactTestSet;
+	
+	private Instances sampledTestSet;
+	private int[] sampledRows;
+	private double epsilon;
 	
 	public OfflineEvaluation(Instances testSet) {
 		classifiers = new ArrayList<Classifier>();
 		this.testSet = testSet;
 	}
+	
+	/**
+	 * Constructor for a compactly stored test set, of which only one row at a time is expanded.
+	 * @param testSet Compact test set
+	 */
+	public OfflineEvaluation(CompactInstances testSet) {
+		classifiers = new ArrayList<Classifier>();
+		this.compactTestSet = testSet;
+	}
 
 	@Override
 	public List<Evaluation> evaluateCumulated(Instances trainingData) throws Exception {
@@ -34,10 +48,7 @@ public class OfflineEvaluation implements Evaluator {
 		for(Classifier classifier : classifiers) {
 			Log.log("Evaluating " + classifier.getClass().getSimpleName() + "...");
 			
-			Evaluation currEval = new Evaluation(trainingData);
-			currEval.evaluateModel(classifier, testSet);
-			
-			evals.add(currEval);
+			evals.add(evaluate(classifier, trainingData));
 		}
 		
 		return evals;
@@ -49,7 +60,7 @@ public class OfflineEvaluation implements Evaluator {
 		
 		List<List<Evaluation>> evals = new ArrayList<List<Evaluation>>();
 		
-		for(int i = stepSize; i <= instanceStream.numInstances(); i++) {
+		for(int i = stepSize; i <= instanceStream.numInstances(); i += stepSize) {
 			Instances trainingData = new Instances(instanceStream, 0, i);
 			
 			// Training
@@ -62,10 +73,42 @@ public class OfflineEvaluation implements Evaluator {
 			for(Classifier classifier : classifiers) {
 				Log.log("Evaluating " + classifier.getClass().getSimpleName() + "...");
 				
-				Evaluation currEval = new Evaluation(trainingData);
-				currEval.evaluateModel(classifier, testSet);
+				currEvals.add(evaluate(classifier, trainingData));
+			}
+			
+			evals.add(currEvals);
+		}
+		
+		return evals;
+	}
+
+	@Override
+	public List<Evaluation> evaluateCumulated(CompactInstances instanceStream) throws Exception {
+		// Offline classifiers need the training data all at once anyway
+		return evaluateCumulated(instanceStream.toInstances());
+	}
+
+	@Override
+	public List<List<Evaluation>> evaluate(CompactInstances instanceStream, int stepSize) throws Exception {
+		stepSize = Math.max(1, Math.min(stepSize, instanceStream.numInstances()));
+		
+		List<List<Evaluation>> evals = new ArrayList<List<Evaluation>>();
+		
+		for(int i = stepSize; i <= instanceStream.numInstances(); i += stepSize) {
+			// Only the prefix of the current checkpoint is expanded, and only while it is trained on
+			Instances trainingData = instanceStream.toInstances(0, i);
+			
+			// Training
+			for(Classifier classifier : classifiers) {
+				classifier.buildClassifier(trainingData);
+			}
+
+			// Evaluation
+			List<Evaluation> currEvals = new ArrayList<Evaluation>(classifiers.size());
+			for(Classifier classifier : classifiers) {
+				Log.log("Evaluating " + classifier.getClass().getSimpleName() + "...");
 				
-				currEvals.add(currEval);
+				currEvals.add(evaluate(classifier, trainingData));
 			}
 			
 			evals.add(currEvals);
@@ -74,6 +117,15 @@ public class OfflineEvaluation implements Evaluator {
 		return evals;
 	}
 
+	@Override
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+		if(compactTestSet != null)
+			sampledRows = SampledEvaluation.stratify(compactTestSet, epsilon);
+		else
+			sampledTestSet = SampledEvaluation.stratify(testSet, epsilon);
+	}
+
 	@Override
 	public String getClassifierName(int index) {
 		return classifiers.get(index).getClass().getSimpleName();
@@ -82,4 +134,18 @@ public class OfflineEvaluation implements Evaluator {
 	public void addClassifier(Classifier classifier) {
 		classifiers.add(classifier);
 	}
+	
+	/**
+	 * Evaluates a trained classifier on the (compact) test set.
+	 * @param classifier Trained classifier
+	 * @param trainingData Data the classifier has been trained on
+	 * @return Evaluation object of the classifier
+	 * @throws Exception
+	 */
+	private Evaluation evaluate(Classifier classifier, Instances trainingData) throws Exception {
+		Evaluation eval = SampledEvaluation.newEvaluation(trainingData, epsilon);
+		if(compactTestSet != null)
+			return SampledEvaluation.evaluate(classifier, eval, compactTestSet, sampledRows);
+		return SampledEvaluation.evaluate(classifier, eval, testSet, sampledTestSet);
+	}
 }
@@ -9,6 +9,7 @@ import weka.classifiers.UpdateableClassifier;
 import weka.classifiers.evaluation.Evaluation;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SerializedObject;
 
 /**
  * Evaluator for online classifiers.
@@ -18,18 +19,36 @@ import weka.core.Instances;
 public class OnlineEvaluation implements Evaluator {
 	private List<UpdateableClassifier> classifiers;
 	
+	private Instances structure;
 	private Instances testSet;
+	private CompactInstances compactTestSet;
+	
+	private Instances sampledTestSet;
+	private int[] sampledRows;
+	private double epsilon;
 	
 	public OnlineEvaluation(Instances testSet) {
 		classifiers = new ArrayList<UpdateableClassifier>();
 		
+		this.structure = new Instances(testSet, 0);
 		this.testSet = testSet;
 	}
+	
+	/**
+	 * Constructor for a compactly stored test set, of which only one row at a time is expanded.
+	 * @param testSet Compact test set
+	 */
+	public OnlineEvaluation(CompactInstances testSet) {
+		classifiers = new ArrayList<UpdateableClassifier>();
+		
+		this.structure = testSet.getDataStructure();
+		this.compactTestSet = testSet;
+	}
 
 	@Override
 	public List<Evaluation> evaluateCumulated(Instances instanceStream) throws Exception {
 		// Accumulate the training set for the evaluation (needs it for the statistics...)
-		Instances trainingData = new Instances(testSet, 0, 0);
+		Instances trainingData = new Instances(structure, 0);
 		
 		// Set up the classifiers internal data structures
 		for(UpdateableClassifier classifier : classifiers)
@@ -48,9 +67,7 @@ public class OnlineEvaluation implements Evaluator {
 		ArrayList<Evaluation> evals = new ArrayList<Evaluation>();
 		for(UpdateableClassifier classifier : classifiers) {
 			Log.log("Evaluating " + classifier.getClass().getSimpleName() + "...");
-			Evaluation currEval = new Evaluation(trainingData);
-			currEval.evaluateModel((Classifier)(classifier), testSet);
-			evals.add(currEval);
+			evals.add(evaluate((Classifier)(classifier), SampledEvaluation.newEvaluation(trainingData, epsilon)));
 		}
 		
 		return evals;
@@ -61,7 +78,7 @@ public class OnlineEvaluation implements Evaluator {
 		stepSize = Math.max(1, Math.min(stepSize, instanceStream.size()));
 		
 		// Accumulate the training set for the evaluation (needs it for the statistics...)
-		Instances trainingData = new Instances(testSet, 0, 0);
+		Instances trainingData = new Instances(structure, 0);
 
 		// Set up the classifiers internal data structures
 		for(UpdateableClassifier classifier : classifiers)
@@ -84,9 +101,7 @@ public class OnlineEvaluation implements Evaluator {
 				ArrayList<Evaluation> currEvals = new ArrayList<Evaluation>(classifiers.size());
 				
 				for(UpdateableClassifier classifier : classifiers) {
-					Evaluation currEval = new Evaluation(trainingData);
-					currEval.evaluateModel((Classifier)(classifier), testSet);
-					currEvals.add(currEval);
+					currEvals.add(evaluate((Classifier)(classifier), SampledEvaluation.newEvaluation(trainingData, epsilon)));
 				}
 				
 				evals.add(currEvals);
@@ -96,6 +111,85 @@ public class OnlineEvaluation implements Evaluator {
 		return evals;
 	}
 
+	@Override
+	public List<Evaluation> evaluateCumulated(CompactInstances instanceStream) throws Exception {
+		// The evaluation only needs the class priors of the training set for the statistics,
+		// so they are accumulated instead of the expanded training instances
+		Evaluation priors = SampledEvaluation.newEvaluation(new Instances(structure, 0), epsilon);
+		
+		// Set up the classifiers internal data structures
+		for(UpdateableClassifier classifier : classifiers)
+			((Classifier)classifier).buildClassifier(new Instances(structure, 0));
+		
+		// Train the classifiers on the data, expanding one instance at a time
+		for(int row = 0; row < instanceStream.numInstances(); row++) {
+			Instance instance = instanceStream.instance(row);
+			for(UpdateableClassifier classifier : classifiers) {
+				classifier.updateClassifier(instance);
+			}
+			
+			priors.updatePriors(instance);
+		}
+		
+		// Evaluate them on the test data
+		ArrayList<Evaluation> evals = new ArrayList<Evaluation>();
+		for(UpdateableClassifier classifier : classifiers) {
+			Log.log("Evaluating " + classifier.getClass().getSimpleName() + "...");
+			evals.add(evaluate((Classifier)(classifier), copy(priors)));
+		}
+		
+		return evals;
+	}
+
+	@Override
+	public List<List<Evaluation>> evaluate(CompactInstances instanceStream, int stepSize) throws Exception {
+		stepSize = Math.max(1, Math.min(stepSize, instanceStream.numInstances()));
+		
+		// The evaluation only needs the class priors of the training set for the statistics,
+		// so they are accumulated instead of the expanded training instances
+		Evaluation priors = SampledEvaluation.newEvaluation(new Instances(structure, 0), epsilon);
+
+		// Set up the classifiers internal data structures
+		for(UpdateableClassifier classifier : classifiers)
+			((Classifier)classifier).buildClassifier(new Instances(structure, 0));
+		
+		List<List<Evaluation>> evals = new ArrayList<List<Evaluation>>();
+		
+		int currTrainingSize = 0;
+		
+		for(int row = 0; row < instanceStream.numInstances(); row++) {
+			// Update the classifiers, expanding one instance at a time
+			Instance instance = instanceStream.instance(row);
+			for(UpdateableClassifier classifier : classifiers) {
+				classifier.updateClassifier(instance);
+			}
+			
+			priors.updatePriors(instance);
+
+			// Evaluate them on the test data after each stepSize training set size increment
+			if(++currTrainingSize % stepSize == 0) {
+				ArrayList<Evaluation> currEvals = new ArrayList<Evaluation>(classifiers.size());
+				
+				for(UpdateableClassifier classifier : classifiers) {
+					currEvals.add(evaluate((Classifier)(classifier), copy(priors)));
+				}
+				
+				evals.add(currEvals);
+			}
+		}
+		
+		return evals;
+	}
+
+	@Override
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+		if(compactTestSet != null)
+			sampledRows = SampledEvaluation.stratify(compactTestSet, epsilon);
+		else
+			sampledTestSet = SampledEvaluation.stratify(testSet, epsilon);
+	}
+
 	@Override
 	public String getClassifierName(int index) {
 		return classifiers.get(index).getClass().getSimpleName();
@@ -104,4 +198,27 @@ public class OnlineEvaluation implements Evaluator {
 	public void addClassifier(UpdateableClassifier classifier) {
 		classifiers.add(classifier);
 	}
+	
+	/**
+	 * Evaluates a trained classifier on the (compact) test set.
+	 * @param classifier Trained classifier
+	 * @param eval Evaluation as returned by SampledEvaluation.newEvaluation()
+	 * @return The given evaluation
+	 * @throws Exception
+	 */
+	private Evaluation evaluate(Classifier classifier, Evaluation eval) throws Exception {
+		if(compactTestSet != null)
+			return SampledEvaluation.evaluate(classifier, eval, compactTestSet, sampledRows);
+		return SampledEvaluation.evaluate(classifier, eval, testSet, sampledTestSet);
+	}
+	
+	/**
+	 * Copies an evaluation holding the accumulated class priors, so it can be used for a single checkpoint.
+	 * @param priors Evaluation without evaluated instances
+	 * @return Deep copy of the evaluation
+	 * @throws Exception
+	 */
+	private static Evaluation copy(Evaluation priors) throws Exception {
+		return (Evaluation)(new SerializedObject(priors).getObject());
+	}
 }
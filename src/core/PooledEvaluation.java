@@ -0,0 +1,362 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import util.Log;
+import weka.classifiers.Classifier;
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instances;
+
+/**
+ * Evaluator distributing the evaluation over a pool of local worker JVMs.
+ * The evaluation is split up into jobs (one per classifier and, for offline classifiers, checkpoint)
+ * which are handed to the workers over a filesystem work queue. Each worker has its own heap,
+ * so a single large classifier cannot take down the others, and jobs of crashed workers are retried.
+ */
+public class PooledEvaluation implements Evaluator {
+	/**
+	 * Time in milliseconds between two checks of the workers and the queue.
+	 */
+	public static final long POLL_INTERVAL = 200;
+
+	/**
+	 * Number of failed worker starts per worker (in a row and without holding a job, e.g. when
+	 * the data set cannot be loaded) after which the pooled evaluation is given up on.
+	 */
+	public static final int MAX_FAILED_STARTS = WorkQueue.MAX_ATTEMPTS;
+
+	/**
+	 * Default time in minutes after which a job is considered hung and its worker is killed.
+	 */
+	public static final long DEFAULT_JOB_TIMEOUT = 6 * 60;
+
+	/**
+	 * Writes the data set of a run to its work queue.
+	 */
+	private interface DataWriter {
+		void write(WorkQueue queue) throws Exception;
+	}
+
+	private List<Classifier> classifiers;
+
+	private Instances testSet;
+	private boolean online;
+	private int numWorkers;
+	private double epsilon;
+	private CompactInstances compactTestSet;
+	private String workerHeap;
+	private long jobTimeout = DEFAULT_JOB_TIMEOUT * 60 * 1000;
+
+	/**
+	 * Constructor.
+	 * @param testSet Test set
+	 * @param online Whether the classifiers are to be trained incrementally (have to be UpdateableClassifiers)
+	 * @param numWorkers Number of worker JVMs
+	 */
+	public PooledEvaluation(Instances testSet, boolean online, int numWorkers) {
+		classifiers = new ArrayList<Classifier>();
+
+		this.testSet = testSet;
+		this.online = online;
+		this.numWorkers = Math.max(1, numWorkers);
+	}
+
+	/**
+	 * Constructor for compactly stored data.
+	 * The workers keep the data in compact storage for all of their jobs and only expand what a job needs.
+	 * @param testSet Compact test set
+	 * @param online Whether the classifiers are to be trained incrementally (have to be UpdateableClassifiers)
+	 * @param numWorkers Number of worker JVMs
+	 */
+	public PooledEvaluation(CompactInstances testSet, boolean online, int numWorkers) {
+		classifiers = new ArrayList<Classifier>();
+
+		this.compactTestSet = testSet;
+		this.online = online;
+		this.numWorkers = Math.max(1, numWorkers);
+	}
+
+	@Override
+	public List<Evaluation> evaluateCumulated(Instances instanceStream) throws Exception {
+		if(testSet == null)
+			throw new IllegalStateException("Regular instances cannot be evaluated on a compact test set");
+		return evaluateCumulated(instanceStream.numInstances(), queue -> queue.writeData(instanceStream, testSet));
+	}
+
+	@Override
+	public List<List<Evaluation>> evaluate(Instances instanceStream, int stepSize) throws Exception {
+		if(testSet == null)
+			throw new IllegalStateException("Regular instances cannot be evaluated on a compact test set");
+		return evaluate(instanceStream.numInstances(), stepSize, queue -> queue.writeData(instanceStream, testSet));
+	}
+
+	@Override
+	public List<Evaluation> evaluateCumulated(CompactInstances instanceStream) throws Exception {
+		if(compactTestSet == null)
+			throw new IllegalStateException("Compact instances cannot be evaluated on a regular test set");
+		return evaluateCumulated(instanceStream.numInstances(), queue -> queue.writeData(instanceStream, compactTestSet));
+	}
+
+	@Override
+	public List<List<Evaluation>> evaluate(CompactInstances instanceStream, int stepSize) throws Exception {
+		if(compactTestSet == null)
+			throw new IllegalStateException("Compact instances cannot be evaluated on a regular test set");
+		return evaluate(instanceStream.numInstances(), stepSize, queue -> queue.writeData(instanceStream, compactTestSet));
+	}
+
+	@Override
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	public String getClassifierName(int index) {
+		return classifiers.get(index).getClass().getSimpleName();
+	}
+
+	/**
+	 * Sets the maximum heap size of each worker JVM.
+	 * By default, the workers get the same JVM options (including -Xmx) as this JVM.
+	 * @param workerHeap Heap size in -Xmx notation (e.g. '2g') or null for the default
+	 */
+	public void setWorkerHeap(String workerHeap) {
+		this.workerHeap = workerHeap;
+	}
+
+	/**
+	 * Sets the time after which a job is considered hung.
+	 * The worker running it is killed and the job is requeued (counting as a failed attempt).
+	 * @param minutes Timeout in minutes per job
+	 */
+	public void setJobTimeout(long minutes) {
+		this.jobTimeout = minutes * 60 * 1000;
+	}
+
+	public void addClassifier(Classifier classifier) {
+		classifiers.add(classifier);
+	}
+
+	/**
+	 * Evaluates the classifiers after being trained on the full instance stream, one job per classifier.
+	 * @param numInstances Number of instances in the instance stream
+	 * @param data Writes the instance stream and the test set to the queue
+	 * @return Evaluation object for each classifier
+	 * @throws Exception
+	 */
+	private List<Evaluation> evaluateCumulated(int numInstances, DataWriter data) throws Exception {
+		List<EvaluationJob> jobs = new ArrayList<EvaluationJob>(classifiers.size());
+		for(Classifier classifier : classifiers)
+			jobs.add(new EvaluationJob(jobs.size(), classifier, online, numInstances, 0, epsilon));
+
+		List<Evaluation> evals = new ArrayList<Evaluation>(classifiers.size());
+		for(List<Evaluation> result : runJobs(data, jobs))
+			evals.add(result.get(0));
+
+		return evals;
+	}
+
+	/**
+	 * Evaluates the classifiers after each stepSize instances of the instance stream.
+	 * @param numInstances Number of instances in the instance stream
+	 * @param stepSize Number of instances to be added to the training set before re-evaluation
+	 * @param data Writes the instance stream and the test set to the queue
+	 * @return Evaluation object for each classifier for each evaluation
+	 * @throws Exception
+	 */
+	private List<List<Evaluation>> evaluate(int numInstances, int stepSize, DataWriter data) throws Exception {
+		stepSize = Math.max(1, Math.min(stepSize, numInstances));
+
+		List<List<Evaluation>> evals = new ArrayList<List<Evaluation>>();
+		if(classifiers.isEmpty())
+			return evals;
+
+		if(online) {
+			// Online classifiers pass through the checkpoints in order, so there is one job per classifier
+			List<EvaluationJob> jobs = new ArrayList<EvaluationJob>(classifiers.size());
+			for(Classifier classifier : classifiers)
+				jobs.add(new EvaluationJob(jobs.size(), classifier, true, numInstances, stepSize, epsilon));
+
+			List<List<Evaluation>> results = runJobs(data, jobs);
+
+			// Regroup from per classifier to per checkpoint
+			for(int checkpoint = 0; checkpoint < results.get(0).size(); checkpoint++) {
+				List<Evaluation> currEvals = new ArrayList<Evaluation>(classifiers.size());
+				for(List<Evaluation> result : results)
+					currEvals.add(result.get(checkpoint));
+				evals.add(currEvals);
+			}
+		} else {
+			// Offline classifiers are retrained for every checkpoint, so each one is a job of its own
+			List<EvaluationJob> jobs = new ArrayList<EvaluationJob>();
+			for(int i = stepSize; i <= numInstances; i += stepSize) {
+				for(Classifier classifier : classifiers)
+					jobs.add(new EvaluationJob(jobs.size(), classifier, false, i, 0, epsilon));
+			}
+
+			List<List<Evaluation>> results = runJobs(data, jobs);
+
+			for(int i = 0; i < results.size(); i += classifiers.size()) {
+				List<Evaluation> currEvals = new ArrayList<Evaluation>(classifiers.size());
+				for(List<Evaluation> result : results.subList(i, i + classifiers.size()))
+					currEvals.add(result.get(0));
+				evals.add(currEvals);
+			}
+		}
+
+		return evals;
+	}
+
+	/**
+	 * Runs the given jobs on the worker pool and waits for their results.
+	 * Workers which exit while holding jobs get their jobs requeued and are replaced
+	 * as long as there is work left. Workers holding a job for longer than the job timeout are killed.
+	 * @param data Writes the instance stream the jobs train on and the test set to the queue
+	 * @param jobs Jobs to be run (ids have to match their list index)
+	 * @return Result of each job
+	 * @throws Exception If a job keeps failing or workers keep failing before claiming a job
+	 */
+	private List<List<Evaluation>> runJobs(DataWriter data, List<EvaluationJob> jobs) throws Exception {
+		File queueDir = Files.createTempDirectory("evaluation-queue").toFile();
+		Process[] workers = new Process[numWorkers];
+
+		try {
+			WorkQueue queue = new WorkQueue(queueDir);
+			data.write(queue);
+			for(EvaluationJob job : jobs)
+				queue.submit(job);
+
+			Log.log("Distributing " + jobs.size() + " jobs over " + numWorkers + " workers...");
+
+			// Workers failing without holding a job are not caught by the job attempts,
+			// so they are counted separately (reset whenever a job finishes)
+			int failedStarts = 0;
+			int numDone = 0;
+
+			while((numDone = queue.numDone()) < jobs.size()) {
+				for(int i = 0; i < workers.length; i++) {
+					String workerId = "worker" + i;
+
+					// Kill workers which hang on a job, so it is requeued below
+					long claimTime = queue.claimTime(workerId);
+					if(workers[i] != null && workers[i].isAlive() && claimTime >= 0
+							&& System.currentTimeMillis() - claimTime > jobTimeout) {
+						Log.log("Worker " + workerId + " exceeded the job timeout of " + (jobTimeout / 60000) + " minutes, killing it...");
+						workers[i].destroyForcibly().waitFor();
+					}
+
+					// Requeue the jobs of workers which have died on them
+					if(workers[i] != null && !workers[i].isAlive()) {
+						int requeued = queue.requeue(workerId);
+						if(requeued > 0) {
+							Log.log("Worker " + workerId + " exited with code " + workers[i].exitValue()
+										+ ", requeued " + requeued + " jobs...");
+						} else if(workers[i].exitValue() != 0) {
+							Log.log("Worker " + workerId + " exited with code " + workers[i].exitValue() + " without running a job...");
+							if(++failedStarts >= MAX_FAILED_STARTS * numWorkers)
+								throw new Exception("Giving up after " + failedStarts + " workers failed before running a job");
+						}
+						workers[i] = null;
+					}
+
+					if(workers[i] == null && queue.hasPending())
+						workers[i] = startWorker(queueDir, workerId);
+				}
+
+				Thread.sleep(POLL_INTERVAL);
+				if(queue.numDone() > numDone)
+					failedStarts = 0;
+			}
+
+			List<List<Evaluation>> results = new ArrayList<List<Evaluation>>(jobs.size());
+			for(EvaluationJob job : jobs)
+				results.add(queue.getResult(job.getId()));
+
+			return results;
+		} finally {
+			for(Process worker : workers) {
+				if(worker != null)
+					worker.destroy();
+			}
+			deleteRecursively(queueDir);
+		}
+	}
+
+	/**
+	 * Starts a new worker JVM with the same classpath and JVM options as this one.
+	 * The output of the worker is forwarded to the log, so it also ends up in the protocol.
+	 * @param queueDir Directory of the work queue
+	 * @param workerId Id of the worker
+	 * @return Worker process
+	 * @throws IOException
+	 */
+	private Process startWorker(File queueDir, String workerId) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for(String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			// A debugger agent would try to listen on the same port in every worker
+			if(!option.startsWith("-agentlib:jdwp") && !option.startsWith("-Xrunjdwp"))
+				command.add(option);
+		}
+		// The last -Xmx option wins
+		if(workerHeap != null)
+			command.add("-Xmx" + workerHeap);
+
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Worker.class.getName());
+		command.add(queueDir.getPath());
+		command.add(workerId);
+		if(Log.getContext() != null)
+			command.add(Log.getContext());
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		Process worker = builder.start();
+
+		Thread forwarder = new Thread(() -> forwardOutput(worker));
+		forwarder.setDaemon(true);
+		forwarder.start();
+
+		return worker;
+	}
+
+	/**
+	 * Forwards the output of a worker to the log line by line until the worker exits.
+	 * @param worker Worker process
+	 */
+	private static void forwardOutput(Process worker) {
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(worker.getInputStream()))) {
+			String line;
+			while((line = reader.readLine()) != null)
+				Log.forward(line);
+		} catch(IOException e) {
+			// The worker has been destroyed, nothing left to forward
+		}
+	}
+
+	/**
+	 * Deletes a directory including its contents.
+	 * @param dir Directory to be deleted
+	 * @throws IOException
+	 */
+	private static void deleteRecursively(File dir) throws IOException {
+		List<Path> paths;
+		try(Stream<Path> walk = Files.walk(dir.toPath())) {
+			// Children come before their parents in reverse order
+			paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		}
+		for(Path path : paths)
+			Files.deleteIfExists(path);
+	}
+}
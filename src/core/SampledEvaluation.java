@@ -0,0 +1,275 @@
+package core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instances;
+import weka.core.Statistics;
+import weka.core.Utils;
+
+/**
+ * Evaluation on a progressively growing, stratified sample of the test set.
+ * The test set is split into stratified folds which are scored one after another
+ * until the Wilson confidence interval of the accuracy is at most +/- epsilon wide.
+ * Since the interval is checked after every fold, the confidence level of each check is
+ * Bonferroni-corrected over NUM_FOLDS, so the reported interval holds at the overall
+ * CONFIDENCE level. This avoids scoring the full test set, which is expensive for lazy
+ * learners like IBk.
+ */
+public class SampledEvaluation extends Evaluation {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of stratified folds the test set is split into (each one is a sample increment).
+	 */
+	public static final int NUM_FOLDS = 20;
+
+	/**
+	 * Overall confidence level of the reported accuracy interval.
+	 */
+	public static final double CONFIDENCE = 0.95;
+
+	/**
+	 * Z-value of the (two-sided) confidence level of a single check, Bonferroni-corrected
+	 * for checking after each of the NUM_FOLDS folds.
+	 */
+	public static final double Z = Statistics.normalInverse(1.0 - (1.0 - CONFIDENCE) / (2.0 * NUM_FOLDS));
+
+	private double epsilon;
+	private double bound = Double.NaN;
+	private double lower = Double.NaN;
+	private double upper = Double.NaN;
+
+	/**
+	 * Constructor.
+	 * @param data Training data (needed by WEKA for the statistics)
+	 * @param epsilon Wanted half width of the accuracy confidence interval (in [0, 1])
+	 * @throws Exception
+	 */
+	public SampledEvaluation(Instances data, double epsilon) throws Exception {
+		super(data);
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Prepares a test set for the sampled evaluation.
+	 * The returned copy is ordered such that each of the NUM_FOLDS consecutive folds is stratified.
+	 * @param testSet Test set to be sampled from
+	 * @param epsilon Wanted half width of the accuracy confidence interval, 0 to disable sampling
+	 * @return Stratified copy of the test set or null if sampling is disabled
+	 */
+	public static Instances stratify(Instances testSet, double epsilon) {
+		if(!(epsilon > 0))
+			return null;
+
+		Instances stratified = new Instances(testSet);
+		if(stratified.numInstances() >= 2)
+			stratified.stratify(numFolds(stratified));
+		return stratified;
+	}
+
+	/**
+	 * Prepares a compactly stored test set for the sampled evaluation.
+	 * Orders the rows into consecutive stratified folds, as stratify() does for regular instances, without copying the test set.
+	 * @param testSet Test set to be sampled from
+	 * @param epsilon Wanted half width of the accuracy confidence interval, 0 to disable sampling
+	 * @return Stratified order of the rows or null if sampling is disabled
+	 */
+	public static int[] stratify(CompactInstances testSet, double epsilon) {
+		if(!(epsilon > 0))
+			return null;
+
+		int numRows = testSet.numInstances();
+		int classIndex = testSet.getDataStructure().classIndex();
+		Integer[] sorted = new Integer[numRows];
+		for(int row = 0; row < numRows; row++)
+			sorted[row] = row;
+		// Group the rows by class (stable, so the random order within each class is kept)
+		if(testSet.getDataStructure().classAttribute().isNominal())
+			Arrays.sort(sorted, Comparator.comparingDouble(row -> testSet.value(row, classIndex)));
+
+		// Deal the rows to the folds in turn, so each consecutive fold is stratified
+		int[] stratified = new int[numRows];
+		int numFolds = Math.max(1, Math.min(NUM_FOLDS, numRows));
+		int next = 0;
+		for(int fold = 0; fold < numFolds; fold++) {
+			for(int i = fold; i < numRows; i += numFolds)
+				stratified[next++] = sorted[i];
+		}
+		return stratified;
+	}
+
+	/**
+	 * Creates the evaluation object for a classifier trained on the given data.
+	 * @param trainingData Training data (needed by WEKA for the statistics)
+	 * @param epsilon Wanted half width of the accuracy confidence interval, 0 to disable sampling
+	 * @return SampledEvaluation if sampling is enabled, otherwise a regular Evaluation
+	 * @throws Exception
+	 */
+	public static Evaluation newEvaluation(Instances trainingData, double epsilon) throws Exception {
+		if(epsilon > 0)
+			return new SampledEvaluation(trainingData, epsilon);
+		return new Evaluation(trainingData);
+	}
+
+	/**
+	 * Evaluates a trained classifier on the full test set or, with sampling enabled, on a sample of it.
+	 * @param classifier Trained classifier
+	 * @param eval Evaluation as returned by newEvaluation()
+	 * @param testSet Full test set
+	 * @param stratifiedTestSet Test set as returned by stratify() or null to evaluate on the full test set
+	 * @return The given evaluation
+	 * @throws Exception
+	 */
+	public static Evaluation evaluate(Classifier classifier, Evaluation eval, Instances testSet,
+			Instances stratifiedTestSet) throws Exception {
+		if(stratifiedTestSet != null)
+			((SampledEvaluation)eval).evaluateModelSampled(classifier, stratifiedTestSet);
+		else
+			eval.evaluateModel(classifier, testSet);
+		return eval;
+	}
+
+	/**
+	 * Evaluates a trained classifier on a compactly stored test set.
+	 * Only one test row at a time is expanded to a regular instance.
+	 * @param classifier Trained classifier
+	 * @param eval Evaluation as returned by newEvaluation()
+	 * @param testSet Full test set
+	 * @param stratifiedRows Row order as returned by stratify() or null to evaluate on the full test set
+	 * @return The given evaluation
+	 * @throws Exception
+	 */
+	public static Evaluation evaluate(Classifier classifier, Evaluation eval, CompactInstances testSet,
+			int[] stratifiedRows) throws Exception {
+		if(stratifiedRows != null) {
+			((SampledEvaluation)eval).evaluateModelSampled(classifier, testSet, stratifiedRows);
+		} else {
+			for(int row = 0; row < testSet.numInstances(); row++)
+				eval.evaluateModelOnce(classifier, testSet.instance(row));
+		}
+		return eval;
+	}
+
+	/**
+	 * Evaluates the classifier fold by fold on the stratified test set until the
+	 * confidence interval is narrow enough or the test set is exhausted.
+	 * @param classifier Trained classifier
+	 * @param stratifiedTestSet Test set as returned by stratify()
+	 * @throws Exception
+	 */
+	public void evaluateModelSampled(Classifier classifier, Instances stratifiedTestSet) throws Exception {
+		// Too few instances to be split up, so just evaluate all of them
+		if(stratifiedTestSet.numInstances() < 2) {
+			evaluateModel(classifier, stratifiedTestSet);
+			updateInterval();
+			return;
+		}
+
+		int numFolds = numFolds(stratifiedTestSet);
+		for(int fold = 0; fold < numFolds; fold++) {
+			// evaluateModel accumulates the statistics, so the sample grows with every fold
+			evaluateModel(classifier, stratifiedTestSet.testCV(numFolds, fold));
+
+			updateInterval();
+			if(bound <= epsilon)
+				break;
+		}
+	}
+
+	/**
+	 * Evaluates the classifier fold by fold on the compactly stored test set until the
+	 * confidence interval is narrow enough or the test set is exhausted.
+	 * The folds are the same as for regular instances (see Instances.testCV()).
+	 * @param classifier Trained classifier
+	 * @param testSet Full test set
+	 * @param stratifiedRows Row order as returned by stratify()
+	 * @throws Exception
+	 */
+	public void evaluateModelSampled(Classifier classifier, CompactInstances testSet, int[] stratifiedRows) throws Exception {
+		int numFolds = Math.max(1, Math.min(NUM_FOLDS, stratifiedRows.length));
+		int first = 0;
+		for(int fold = 0; fold < numFolds; fold++) {
+			int foldSize = stratifiedRows.length / numFolds + ((fold < stratifiedRows.length % numFolds) ? 1 : 0);
+			for(int i = first; i < first + foldSize; i++)
+				evaluateModelOnce(classifier, testSet.instance(stratifiedRows[i]));
+			first += foldSize;
+
+			updateInterval();
+			if(bound <= epsilon)
+				break;
+		}
+	}
+
+	/**
+	 * Half width of the accuracy confidence interval after the sampled evaluation.
+	 * @return Confidence bound (in [0, 1]) or NaN if no instance has been evaluated yet
+	 */
+	public double getConfidenceBound() {
+		return bound;
+	}
+
+	/**
+	 * Lower end of the accuracy confidence interval after the sampled evaluation.
+	 * @return Lower bound (in [0, 1]) or NaN if no instance has been evaluated yet
+	 */
+	public double getLowerBound() {
+		return lower;
+	}
+
+	/**
+	 * Upper end of the accuracy confidence interval after the sampled evaluation.
+	 * @return Upper bound (in [0, 1]) or NaN if no instance has been evaluated yet
+	 */
+	public double getUpperBound() {
+		return upper;
+	}
+
+	/**
+	 * Wanted half width of the accuracy confidence interval.
+	 * @return Epsilon (in [0, 1])
+	 */
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	/**
+	 * Prints the sample size and the confidence interval of the accuracy to a string.
+	 * The Wilson interval is not centred at the sample accuracy, so its ends are given explicitly.
+	 * @return String describing the sampled accuracy
+	 */
+	public String toBoundString() {
+		return "Sampled test instances\t\t" + (int)(numInstances()) + "\n"
+				+ "Accuracy (" + Math.round(CONFIDENCE * 100.0) + "% confidence)\t"
+				+ "[" + Utils.doubleToString(lower * 100.0, 4) + ", " + Utils.doubleToString(upper * 100.0, 4) + "] %";
+	}
+
+	/**
+	 * Number of folds (sample increments) for the given test set.
+	 * @param testSet Test set with at least two instances
+	 * @return Number of folds
+	 */
+	private static int numFolds(Instances testSet) {
+		return Math.min(NUM_FOLDS, testSet.numInstances());
+	}
+
+	/**
+	 * Computes the Wilson score interval of the accuracy evaluated so far.
+	 * Unlike the normal approximation, this does not collapse to zero width for an accuracy of 0 or 1
+	 * and stays within [0, 1]; it is centred at (p + z^2/2n) / (1 + z^2/n) instead of the sample accuracy p.
+	 */
+	private void updateInterval() {
+		double total = numInstances();
+		if(total <= 0)
+			return;
+
+		double p = correct() / total;
+		double zSquared = Z * Z;
+		double centre = (p + zSquared / (2.0 * total)) / (1.0 + zSquared / total);
+		bound = Z / (1.0 + zSquared / total) * Math.sqrt(p * (1.0 - p) / total + zSquared / (4.0 * total * total));
+		lower = Math.max(0.0, centre - bound);
+		upper = Math.min(1.0, centre + bound);
+	}
+}
@@ -32,8 +32,9 @@ import util.Log;
 public class TestClassifiers {
 	
 	public static void main(String[] args) {
-		if(args.length < 1) {
-			System.err.println("Usage: java " + TestClassifiers.class.getName() + " <filename> [-online] [-steps s] [-window size overlap] [-classifier name params...]*");
+		if(args.length < 1 || (args[0].equals("-batch") && args.length < 2)) {
+			System.err.println("Usage: java " + TestClassifiers.class.getName() + " <filename> [-online] [-workers n] [-workerheap size] [-jobtimeout minutes] [-steps s] [-epsilon e] [-compact float|int16] [-window size overlap] [-classifier name params...]*");
+			System.err.println("       java " + TestClassifiers.class.getName() + " -batch <manifest>");
 			System.exit(0);
 		}
 		
@@ -41,117 +42,231 @@ public class TestClassifiers {
 			// Enable the logger to output to the standard console
 			Log.enableConsole();
 			
-			// Load the data file given via command line
-			String fileName = args[0];
-			String parameters = String.join(" ", args);
-
-			// Load the CSV file containing the data
-			Log.log("Loading data from file '" + fileName + "'...");
-			CSVLoader loader = new CSVLoader();
-			loader.setSource(new File(fileName));
-			Instances data = loader.getDataSet();
-			
-			if(!parameters.contains("-nofilter")) {
-				// Filter out the 'null' values from the 'gt' class attribute
-				Log.log("Filtering out missing values...");
-				RemoveWithValues rem = new RemoveWithValues();
-				// + 1 since WEKA indices start at 1 when given as string
-				rem.setAttributeIndex(Integer.toString(data.attribute("gt").index() + 1));
-				rem.setNominalIndicesArr(new int[]{data.attribute("gt").indexOfValue("null")});
-				rem.setModifyHeader(true);
-				rem.setInputFormat(data);
-				data = Filter.useFilter(data, rem);
-			}
-			
-			data.setClass(data.attribute("gt"));
-			
-			// Apply sliding window to make use of the time component of the sequential data
-			ActivityWindowifier windowifier = new ActivityWindowifier(data.classAttribute());
-			if(parameters.contains("-window ")) {
-				String[] windowOptions = parameters.split("-window ")[1].split(" ");
-				data = windowifier.windowify(data, Integer.parseInt(windowOptions[0]), Integer.parseInt(windowOptions[1]));
-			} else if(!parameters.contains("-nowindow")){
-				data = windowifier.windowify(data, 256, 128);
+			if(args[0].equals("-batch")) {
+				// Run the pipeline for every data set listed in the manifest
+				BatchRunner.run(new File(args[1]));
+			} else {
+				// Load the data file given via command line
+				String fileName = args[0];
+				String parameters = String.join(" ", args);
+				
+				Instances data = loadData(fileName);
+				data = preprocess(data, parameters);
+				evaluate(data, parameters);
 			}
 			
-			// If wanted, store the pre-processed data to the file of choice
-			if(parameters.contains("-savedata ")) {
-				System.out.println(parameters.split("-savedata ")[1] + " | " + parameters.split("-savedata ")[1].split(" ")[0]);
-				File saveFile = new File(parameters.split("-savedata ")[1].split(" ")[0]);
-				Log.log("Saving the pre-processed data to '" + saveFile.toString() + "'...");
-				CSVSaver writer = new CSVSaver();
-				writer.setFile(saveFile);
-				writer.setInstances(data);
-				writer.writeBatch();
-			}
+			Log.saveProtocol("protocols/Log" + System.currentTimeMillis() + ".txt");
 			
-			// Randomize the order of the windows
-			data.randomize(new Random((long)(Math.random() * System.currentTimeMillis())));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Loads the data set from a CSV file.
+	 * @param fileName Name of the CSV file
+	 * @return Raw data set
+	 * @throws Exception
+	 */
+	static Instances loadData(String fileName) throws Exception {
+		// Load the CSV file containing the data
+		Log.log("Loading data from file '" + fileName + "'...");
+		CSVLoader loader = new CSVLoader();
+		loader.setSource(new File(fileName));
+		return loader.getDataSet();
+	}
+	
+	/**
+	 * Pre-processes the raw data set: filters out missing class values and applies sliding window.
+	 * @param data Raw data set
+	 * @param parameters Command line parameters (joined by spaces)
+	 * @return Pre-processed data set
+	 * @throws Exception
+	 */
+	static Instances preprocess(Instances data, String parameters) throws Exception {
+		if(!parameters.contains("-nofilter")) {
+			// Filter out the 'null' values from the 'gt' class attribute
+			Log.log("Filtering out missing values...");
+			RemoveWithValues rem = new RemoveWithValues();
+			// + 1 since WEKA indices start at 1 when given as string
+			rem.setAttributeIndex(Integer.toString(data.attribute("gt").index() + 1));
+			rem.setNominalIndicesArr(new int[]{data.attribute("gt").indexOfValue("null")});
+			rem.setModifyHeader(true);
+			rem.setInputFormat(data);
+			data = Filter.useFilter(data, rem);
+		}
+		
+		data.setClass(data.attribute("gt"));
+		
+		// Apply sliding window to make use of the time component of the sequential data
+		ActivityWindowifier windowifier = new ActivityWindowifier(data.classAttribute());
+		if(parameters.contains("-window ")) {
+			String[] windowOptions = parameters.split("-window ")[1].split(" ");
+			data = windowifier.windowify(data, Integer.parseInt(windowOptions[0]), Integer.parseInt(windowOptions[1]));
+		} else if(!parameters.contains("-nowindow")){
+			data = windowifier.windowify(data, 256, 128);
+		}
+		
+		// If wanted, store the pre-processed data to the file of choice
+		if(parameters.contains("-savedata ")) {
+			System.out.println(parameters.split("-savedata ")[1] + " | " + parameters.split("-savedata ")[1].split(" ")[0]);
+			File saveFile = new File(parameters.split("-savedata ")[1].split(" ")[0]);
+			Log.log("Saving the pre-processed data to '" + saveFile.toString() + "'...");
+			CSVSaver writer = new CSVSaver();
+			writer.setFile(saveFile);
+			writer.setInstances(data);
+			writer.writeBatch();
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * Splits the pre-processed data set into training and test data and evaluates the classifiers
+	 * given on the command line. The results are written to the log.
+	 * With -compact, the data set is moved into compact storage, leaving the given instances empty.
+	 * @param data Pre-processed data set
+	 * @param parameters Command line parameters (joined by spaces)
+	 * @throws Exception
+	 */
+	static void evaluate(Instances data, String parameters) throws Exception {
+		// Randomize the order of the windows
+		data.randomize(new Random((long)(Math.random() * System.currentTimeMillis())));
 
-			// Split up the data into training and testing (50 / 50)
-			Instances trainingData = new Instances(data, 0, data.numInstances() / 2);
-			Instances testData = new Instances(data, data.numInstances() / 2, data.numInstances() / 2);
-			
-			// Parse the command line arguments:
-			// [-online] [-classifier name params...]*
-			boolean online = parameters.contains("-online");
-			List<String> classifierParams = new ArrayList<String>(Arrays.asList(parameters.split("-classifier ")));
-			classifierParams = classifierParams.subList(1, classifierParams.size());
+		// Split up the data into training and testing (50 / 50)
+		int trainingSize = data.numInstances() / 2;
+		int testSize = data.numInstances() / 2;
+		Instances structure = new Instances(data, 0);
+		Instances trainingData = null;
+		Instances testData = null;
+		CompactInstances compactTrainingData = null;
+		CompactInstances compactTestData = null;
+		
+		if(parameters.contains("-compact ")) {
+			// Both splits come from the same store, so they are quantized only once and alike
+			CompactInstances.Precision precision = CompactInstances.Precision.parse(parameters.split("-compact ")[1].split(" ")[0]);
+			Log.log("Storing the windows with " + precision + " precision...");
+			CompactInstances compactData = new CompactInstances(data, precision);
+			compactTrainingData = compactData.subset(0, trainingSize);
+			compactTestData = compactData.subset(trainingSize, testSize);
 			
-			// Set up the correct evaluator
-			Evaluator eval = null;
-			String clsNames = "[";
-			if(online) {
-				eval = new OnlineEvaluation(testData);
-				for(UpdateableClassifier classifier : TestClassifiers.parseUpdateableClassifiersFromCommandline(classifierParams)) {
+			// Only the compact splits are kept, so the windows can be garbage collected
+			data.delete();
+		} else {
+			trainingData = new Instances(data, 0, trainingSize);
+			testData = new Instances(data, trainingSize, testSize);
+		}
+		
+		// Parse the command line arguments:
+		// [-online] [-classifier name params...]*
+		boolean online = parameters.contains("-online");
+		List<String> classifierParams = new ArrayList<String>(Arrays.asList(parameters.split("-classifier ")));
+		classifierParams = classifierParams.subList(1, classifierParams.size());
+		
+		// Set up the correct evaluator
+		Evaluator eval = null;
+		String clsNames = "[";
+		
+		// With -workers, the evaluation is distributed over the given number of worker JVMs
+		PooledEvaluation pool = null;
+		if(parameters.contains("-workers ")) {
+			int numWorkers = Integer.parseInt(parameters.split("-workers ")[1].split(" ")[0]);
+			Log.log("Number of worker JVMs: " + numWorkers + "...");
+			pool = (compactTestData != null) ? new PooledEvaluation(compactTestData, online, numWorkers)
+					: new PooledEvaluation(testData, online, numWorkers);
+			if(parameters.contains("-workerheap ")) {
+				String workerHeap = parameters.split("-workerheap ")[1].split(" ")[0];
+				Log.log("Maximum heap per worker JVM: " + workerHeap + "...");
+				pool.setWorkerHeap(workerHeap);
+			}
+			if(parameters.contains("-jobtimeout ")) {
+				long jobTimeout = Long.parseLong(parameters.split("-jobtimeout ")[1].split(" ")[0]);
+				if(jobTimeout <= 0)
+					throw new IllegalArgumentException("Usage: -jobtimeout minutes with minutes > 0, got " + jobTimeout);
+				Log.log("Job timeout per worker: " + jobTimeout + " minutes...");
+				pool.setJobTimeout(jobTimeout);
+			}
+			eval = pool;
+		}
+		
+		if(online) {
+			if(pool == null)
+				eval = (compactTestData != null) ? new OnlineEvaluation(compactTestData) : new OnlineEvaluation(testData);
+			for(UpdateableClassifier classifier : TestClassifiers.parseUpdateableClassifiersFromCommandline(classifierParams)) {
+				if(pool != null)
+					pool.addClassifier((Classifier)classifier);
+				else
 					((OnlineEvaluation)eval).addClassifier(classifier);
-					clsNames += classifier.getClass().getSimpleName() + ", ";
-				}
-			} else {
-				eval = new OfflineEvaluation(testData);
-				for(Classifier classifier : TestClassifiers.parseClassifiersFromCommandline(classifierParams)) {
+				clsNames += classifier.getClass().getSimpleName() + ", ";
+			}
+		} else {
+			if(pool == null)
+				eval = (compactTestData != null) ? new OfflineEvaluation(compactTestData) : new OfflineEvaluation(testData);
+			for(Classifier classifier : TestClassifiers.parseClassifiersFromCommandline(classifierParams)) {
+				if(pool != null)
+					pool.addClassifier(classifier);
+				else
 					((OfflineEvaluation)eval).addClassifier(classifier);
-					clsNames += classifier.getClass().getSimpleName() + ", ";
-				}
+				clsNames += classifier.getClass().getSimpleName() + ", ";
 			}
+		}
+		
+		Log.log("Selected classifiers: " + clsNames.substring(0, clsNames.length() - 2) + "]");
+		
+		// Only score a stratified sample of the test set until the accuracy is known within +/- epsilon
+		if(parameters.contains("-epsilon ")) {
+			double epsilon = Double.parseDouble(parameters.split("-epsilon ")[1].split(" ")[0]);
+			// Also rejects NaN, which would silently disable the sampling
+			if(!(epsilon > 0 && epsilon < 1))
+				throw new IllegalArgumentException("Usage: -epsilon e with 0 < e < 1 (half width of the accuracy confidence interval), got " + epsilon);
+			Log.log("Sampled evaluation with accuracy confidence bound: +/- " + epsilon + "...");
+			eval.setEpsilon(epsilon);
+		}
+		
+		if(parameters.contains("-steps")) {
+			int stepSize = Integer.parseInt(parameters.split("-steps ")[1].split(" ")[0]);
 			
-			Log.log("Selected classifiers: " + clsNames.substring(0, clsNames.length() - 2) + "]");
+			Log.log("Evaluation step size: " + stepSize + "...");
 			
-			if(parameters.contains("-steps")) {
-				int stepSize = Integer.parseInt(parameters.split("-steps ")[1].split(" ")[0]);
-				
-				Log.log("Evaluation step size: " + stepSize + "...");
-				
-				int currentStep = stepSize;
-				
-				Log.log("Evaluating classifiers...");
-				
-				for(List<Evaluation> evals : eval.evaluate(trainingData, stepSize)) {
-					Log.log("Current training set size: " + currentStep + "\n------------------------\n");
-					int index = 0;
-					for(Evaluation e : evals) {
-						Log.log(eval.getClassifierName(index++) + ":\n" + e.toSummaryString() + "\n"
-									+ printConfusionMatrix(trainingData.classAttribute(), e.confusionMatrix()) + "\n");
-					}
-					currentStep += stepSize;
-				}
-			} else {
-				Log.log("Evaluating classifiers...");
-				
+			int currentStep = stepSize;
+			
+			Log.log("Evaluating classifiers...");
+			
+			List<List<Evaluation>> steps = (compactTrainingData != null) ? eval.evaluate(compactTrainingData, stepSize)
+					: eval.evaluate(trainingData, stepSize);
+			for(List<Evaluation> evals : steps) {
+				Log.log("Current training set size: " + currentStep + "\n------------------------\n");
 				int index = 0;
-				for(Evaluation e : eval.evaluateCumulated(trainingData)) {
-					Log.log(eval.getClassifierName(index++) + ":\n" + e.toSummaryString() + "\n"
-								+ printConfusionMatrix(trainingData.classAttribute(), e.confusionMatrix()) + "\n");
+				for(Evaluation e : evals) {
+					Log.log(eval.getClassifierName(index++) + ":\n" + e.toSummaryString() + "\n" + printConfidenceBound(e)
+								+ printConfusionMatrix(structure.classAttribute(), e.confusionMatrix()) + "\n");
 				}
+				currentStep += stepSize;
 			}
+		} else {
+			Log.log("Evaluating classifiers...");
 			
-			Log.saveProtocol("protocols/Log" + System.currentTimeMillis() + ".txt");
-			
-		} catch (Exception e) {
-			e.printStackTrace();
+			int index = 0;
+			List<Evaluation> evals = (compactTrainingData != null) ? eval.evaluateCumulated(compactTrainingData)
+					: eval.evaluateCumulated(trainingData);
+			for(Evaluation e : evals) {
+				Log.log(eval.getClassifierName(index++) + ":\n" + e.toSummaryString() + "\n" + printConfidenceBound(e)
+							+ printConfusionMatrix(structure.classAttribute(), e.confusionMatrix()) + "\n");
+			}
 		}
 	}
 	
+	/**
+	 * Prints the sample size and accuracy confidence bound of a sampled evaluation to a string.
+	 * @param eval Evaluation to be printed
+	 * @return String showing the confidence bound or an empty string if the full test set was evaluated
+	 */
+	private static String printConfidenceBound(Evaluation eval) {
+		if(eval instanceof SampledEvaluation)
+			return ((SampledEvaluation)eval).toBoundString() + "\n";
+		return "";
+	}
+	
 	/**
 	 * Prints the given confusion matrix with respect to the class attribute to a string.
 	 * Each value holding cell is three tabs wide.
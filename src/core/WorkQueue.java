@@ -0,0 +1,233 @@
+package core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+/**
+ * Filesystem based work queue shared between the coordinator and its worker JVMs.
+ * The queue directory holds the data set and three sub directories:
+ * 'pending' for submitted jobs, 'running/<worker>' for jobs claimed by a worker and 'done' for results.
+ * Jobs are claimed by atomically renaming them, so the workers need no further locking.
+ * The modification time of a claimed job file is its claim time, so the coordinator can detect hung jobs.
+ * The queue is private to a single PooledEvaluation run: only the coordinator's own workers
+ * are watched and requeued when they fail.
+ */
+public class WorkQueue {
+	/**
+	 * Number of attempts after which a failing job is given up on.
+	 */
+	public static final int MAX_ATTEMPTS = 3;
+
+	private static final String JOB_SUFFIX = ".job";
+	private static final String RESULT_SUFFIX = ".result";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private File dataFile;
+	private File pendingDir;
+	private File runningDir;
+	private File doneDir;
+
+	/**
+	 * Constructor.
+	 * Opens the queue in the given directory, creating its structure if necessary.
+	 * @param dir Queue directory
+	 * @throws IOException
+	 */
+	public WorkQueue(File dir) throws IOException {
+		dataFile = new File(dir, "data.ser");
+		pendingDir = new File(dir, "pending");
+		runningDir = new File(dir, "running");
+		doneDir = new File(dir, "done");
+
+		for(File subDir : new File[]{pendingDir, runningDir, doneDir})
+			Files.createDirectories(subDir.toPath());
+	}
+
+	/**
+	 * Stores the data set all jobs of this queue operate on.
+	 * @param instanceStream Instance stream the jobs train on
+	 * @param testSet Test set
+	 * @throws Exception
+	 */
+	public void writeData(Instances instanceStream, Instances testSet) throws Exception {
+		publish(dataFile, new Object[]{instanceStream, testSet});
+	}
+
+	/**
+	 * Stores the data set all jobs of this queue operate on in compact form.
+	 * @param instanceStream Instance stream the jobs train on
+	 * @param testSet Test set
+	 * @throws Exception
+	 */
+	public void writeData(CompactInstances instanceStream, CompactInstances testSet) throws Exception {
+		publish(dataFile, new Object[]{instanceStream, testSet});
+	}
+
+	/**
+	 * Loads the data set all jobs of this queue operate on.
+	 * @return Instance stream and test set, either both as Instances or both as CompactInstances
+	 * @throws Exception
+	 */
+	public Object[] readData() throws Exception {
+		return (Object[])(SerializationHelper.read(dataFile.getPath()));
+	}
+
+	/**
+	 * Adds a job to the pending jobs.
+	 * @param job Job to be run
+	 * @throws Exception
+	 */
+	public void submit(EvaluationJob job) throws Exception {
+		publish(new File(pendingDir, jobFileName(job.getId())), job);
+	}
+
+	/**
+	 * Claims a pending job for the given worker.
+	 * @param workerId Id of the claiming worker
+	 * @return Claimed job or null if there are no more pending jobs
+	 * @throws Exception
+	 */
+	public EvaluationJob claim(String workerId) throws Exception {
+		File workerDir = new File(runningDir, workerId);
+		Files.createDirectories(workerDir.toPath());
+
+		for(File jobFile : listFiles(pendingDir, JOB_SUFFIX)) {
+			File claimedFile = new File(workerDir, jobFile.getName());
+			try {
+				Files.move(jobFile.toPath(), claimedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch(NoSuchFileException e) {
+				// Another worker was faster
+				continue;
+			}
+			// A rename keeps the modification time of the submission
+			claimedFile.setLastModified(System.currentTimeMillis());
+			return (EvaluationJob)(SerializationHelper.read(claimedFile.getPath()));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stores the result of a job and removes it from the worker's running jobs.
+	 * @param job Finished job
+	 * @param workerId Id of the worker which ran the job
+	 * @param result Evaluations computed by the job
+	 * @throws Exception
+	 */
+	public void complete(EvaluationJob job, String workerId, List<Evaluation> result) throws Exception {
+		publish(new File(doneDir, job.getId() + RESULT_SUFFIX), new ArrayList<Evaluation>(result));
+		Files.delete(new File(new File(runningDir, workerId), jobFileName(job.getId())).toPath());
+	}
+
+	/**
+	 * Moves the running jobs of a failed worker back to the pending jobs.
+	 * @param workerId Id of the failed worker
+	 * @return Number of jobs which have been requeued
+	 * @throws Exception If a job has failed MAX_ATTEMPTS times
+	 */
+	public int requeue(String workerId) throws Exception {
+		File workerDir = new File(runningDir, workerId);
+		List<File> jobFiles = listFiles(workerDir, JOB_SUFFIX);
+
+		for(File jobFile : jobFiles) {
+			EvaluationJob job = (EvaluationJob)(SerializationHelper.read(jobFile.getPath()));
+			if(job.incrementAttempts() >= MAX_ATTEMPTS)
+				throw new Exception("Giving up on " + job + " after " + job.getAttempts() + " failed attempts");
+
+			submit(job);
+			Files.delete(jobFile.toPath());
+		}
+
+		return jobFiles.size();
+	}
+
+	/**
+	 * Time at which the given worker claimed its oldest running job.
+	 * @param workerId Id of the worker
+	 * @return Claim time in milliseconds since the epoch or -1 if the worker holds no job
+	 */
+	public long claimTime(String workerId) {
+		long claimTime = -1;
+		for(File jobFile : listFiles(new File(runningDir, workerId), JOB_SUFFIX)) {
+			long modified = jobFile.lastModified();
+			if(modified > 0 && (claimTime < 0 || modified < claimTime))
+				claimTime = modified;
+		}
+		return claimTime;
+	}
+
+	/**
+	 * Checks whether there are jobs left to be claimed.
+	 * @return True if there are pending jobs
+	 */
+	public boolean hasPending() {
+		return !listFiles(pendingDir, JOB_SUFFIX).isEmpty();
+	}
+
+	/**
+	 * Number of finished jobs.
+	 * @return Number of stored results
+	 */
+	public int numDone() {
+		return listFiles(doneDir, RESULT_SUFFIX).size();
+	}
+
+	/**
+	 * Loads the result of a finished job.
+	 * @param jobId Id of the job
+	 * @return Evaluations computed by the job
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Evaluation> getResult(int jobId) throws Exception {
+		return (List<Evaluation>)(SerializationHelper.read(new File(doneDir, jobId + RESULT_SUFFIX).getPath()));
+	}
+
+	// Zero-padded, so the jobs are claimed in the order of their ids
+	private static String jobFileName(int jobId) {
+		return String.format("%08d", jobId) + JOB_SUFFIX;
+	}
+
+	/**
+	 * Lists the files in a directory ending with the given suffix (in name order).
+	 * @param dir Directory to be listed
+	 * @param suffix File name suffix
+	 * @return List of matching files (empty if the directory does not exist)
+	 */
+	private static List<File> listFiles(File dir, String suffix) {
+		File[] files = dir.listFiles((file, name) -> name.endsWith(suffix));
+		if(files == null)
+			return new ArrayList<File>();
+
+		Arrays.sort(files);
+		return new ArrayList<File>(Arrays.asList(files));
+	}
+
+	/**
+	 * Serializes an object to a temporary file and then renames it to its final name,
+	 * so readers never see partially written files.
+	 * @param file Target file
+	 * @param object Object to be written
+	 * @throws Exception
+	 */
+	private static void publish(File file, Object object) throws Exception {
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		SerializationHelper.write(tempFile.getPath(), object);
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package core;
+
+import java.io.File;
+
+import util.Log;
+import weka.core.Instances;
+
+/**
+ * Worker process of a pooled evaluation.
+ * Claims jobs from a work queue and runs them until no pending jobs are left.
+ * Workers are started (and restarted on failure) by PooledEvaluation.
+ */
+public class Worker {
+
+	public static void main(String[] args) {
+		if(args.length < 2) {
+			System.err.println("Usage: java " + Worker.class.getName() + " <queue directory> <worker id> [log context]");
+			System.exit(0);
+		}
+
+		try {
+			Log.enableConsole();
+			// The coordinator forwards the output to its own log, so mark it the same way
+			if(args.length >= 3)
+				Log.setContext(args[2]);
+
+			WorkQueue queue = new WorkQueue(new File(args[0]));
+			String workerId = args[1];
+
+			// The data set is shared by all jobs of the queue, so it is only loaded once
+			Object[] data = queue.readData();
+
+			EvaluationJob job;
+			while((job = queue.claim(workerId)) != null) {
+				Log.log("Worker " + workerId + ": running " + job + "...");
+				if(data[0] instanceof CompactInstances)
+					queue.complete(job, workerId, job.run((CompactInstances)data[0], (CompactInstances)data[1]));
+				else
+					queue.complete(job, workerId, job.run((Instances)data[0], (Instances)data[1]));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			// Signal the failure to the coordinator, which requeues the claimed job
+			System.exit(1);
+		}
+	}
+}
@@ -10,7 +10,9 @@ import java.text.SimpleDateFormat;
  */
 public class Log {
 	private static boolean consoleEnabled = false;
-	private static String protocol = "";
+	private static StringBuilder protocol = new StringBuilder();
+	// Context (e.g. the data set) of the current thread, prepended to its messages
+	private static ThreadLocal<String> context = new ThreadLocal<String>();
 	
 	/**
 	 * Enables logger output to the standard std::out console.
@@ -26,13 +28,43 @@ public class Log {
 		consoleEnabled = false;
 	}
 	
+	/**
+	 * Sets the context of the current thread which is prepended to its messages.
+	 * This keeps the messages of concurrently processed data sets apart.
+	 * @param name Name of the context or null for none
+	 */
+	public static void setContext(String name) {
+		context.set(name);
+	}
+	
+	/**
+	 * Returns the context of the current thread.
+	 * @return Name of the context or null for none
+	 */
+	public static String getContext() {
+		return context.get();
+	}
+	
+	/**
+	 * Logs a line which has already been formatted (e.g. by the logger of another process)
+	 * without adding a time stamp or context.
+	 * @param line Line to be logged
+	 */
+	public static synchronized void forward(String line) {
+		protocol.append(line).append('\n');
+		if(consoleEnabled)
+			System.out.println(line);
+	}
+	
 	/**
 	 * Logs a string.
 	 * @param s String to be logged
 	 */
-	public static void log(String s) {
+	public static synchronized void log(String s) {
+		if(context.get() != null)
+			s = "[" + context.get() + "] " + s;
 		s = "[" + new SimpleDateFormat("EEE, dd MMM YYYY HH:mm:ss z").format(new java.util.Date()) + "] - " + s;
-		protocol += s + '\n';
+		protocol.append(s).append('\n');
 		if(consoleEnabled)
 			System.out.println(s);
 	}
@@ -41,8 +73,8 @@ public class Log {
 	 * Returns the accumulated log.
 	 * @return Full log
 	 */
-	public static String getProtocol() {
-		return protocol;
+	public static synchronized String getProtocol() {
+		return protocol.toString();
 	}
 	
 	/**
@@ -50,7 +82,7 @@ public class Log {
 	 * @param fileName Name of file
 	 * @throws FileNotFoundException
 	 */
-	public static void saveProtocol(String fileName) throws FileNotFoundException {
+	public static synchronized void saveProtocol(String fileName) throws FileNotFoundException {
 		PrintWriter writer = new PrintWriter(fileName);
 		writer.println(protocol);
 		writer.close();